@@ -0,0 +1,127 @@
+package history;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище объектов на локальной файловой системе.
+ * Используется как замена S3 в тестах и при локальном запуске:
+ * каждый объект — отдельный файл в корневом каталоге, ключ — относительный путь.
+ * Запись идёт через временный файл с атомарным переименованием,
+ * поэтому частично записанный объект никогда не виден читателям.
+ */
+public class FileSystemObjectStorage implements ObjectStorage {
+    private final Path root;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "history-fs-storage");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FileSystemObjectStorage(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, byte[] data) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Path target = resolve(key);
+                Files.createDirectories(target.getParent());
+                Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+                Files.write(tmp, data);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка записи объекта " + key, e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new IOException("Объект " + key + " короче запрошенного диапазона");
+                    }
+                }
+                return buffer.array();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения объекта " + key, e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> get(String key) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Files.readAllBytes(resolve(key));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения объекта " + key, e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> list(String prefix) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!Files.isDirectory(root)) {
+                return List.of();
+            }
+            try (Stream<Path> files = Files.walk(root)) {
+                return files.filter(Files::isRegularFile)
+                        .map(file -> root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+                        .filter(key -> key.startsWith(prefix) && !key.endsWith(".tmp"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка чтения каталога " + root, e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String key) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                Files.deleteIfExists(resolve(key));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка удаления объекта " + key, e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("Недопустимый ключ объекта: " + key);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,749 @@
+package history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Многоуровневое хранилище истории комнат чата.
+ * Уровни:
+ *  - горячий: открытый сегмент каждой комнаты (последние сообщения) в памяти;
+ *  - холодный: закрытые сегменты, сжатые gzip и объединённые в крупные пакетные объекты,
+ *    которые асинхронно выгружаются в {@link ObjectStorage}.
+ * Рядом с каждым пакетом записывается манифест (комната, номер сегмента, смещение, длина,
+ * количество сообщений), поэтому после перезапуска индекс восстанавливается методом {@link #restore()}.
+ * Пока пакет не выгружен, его сегменты читаются из памяти или из локального каталога сброса,
+ * после выгрузки — ranged-чтением из хранилища через LRU-кэш {@link SegmentCache}.
+ * Пакеты выгружаются через одну очередь с ограниченным числом одновременных загрузок
+ * (maxPendingBytes / batchBytes), поэтому копии пакетов в памяти не превышают лимит.
+ * После ошибки вся очередь приостанавливается с экспоненциальной задержкой. Объём невыгруженных пакетов
+ * в памяти ограничен: сверх лимита пакеты сбрасываются на локальный диск, а без каталога сброса
+ * новые сообщения отклоняются с {@link IllegalStateException}.
+ * Каждая комната блокируется отдельно, общий пакет — коротким отдельным замком;
+ * сжатие сегментов и копирование пакетов выполняются вне блокировок.
+ */
+public class HistoryArchive implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(HistoryArchive.class);
+    private static final String PREFIX = "history/";
+    private static final String DATA_SUFFIX = ".seg";
+    private static final String MANIFEST_SUFFIX = ".idx";
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 60_000;
+
+    private final ObjectStorage storage;
+    private final ObjectStorage spill;
+    private final int segmentMessages;
+    private final int batchBytes;
+    private final long maxPendingBytes;
+    private final Duration ioTimeout;
+    private final SegmentCache cache;
+    private final long epoch = System.currentTimeMillis();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final Map<String, PendingBatch> pending = new ConcurrentHashMap<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "history-upload-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Deque<PendingBatch> uploadQueue = new ConcurrentLinkedDeque<>();
+    private final Semaphore uploadSlots;
+    private final AtomicInteger uploadFailures = new AtomicInteger();
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    private final Object batchLock = new Object();
+    private volatile boolean closed;
+    private Batch batch;
+    private long batchSequence;
+
+    /**
+     * Создаёт архив без каталога сброса: при переполнении очереди выгрузки (64 МБ)
+     * новые сообщения отклоняются.
+     *
+     * @param storage         Холодное хранилище пакетов.
+     * @param segmentMessages Количество сообщений, после которого сегмент комнаты закрывается.
+     * @param batchBytes      Размер пакета (сжатых байтов), после которого он выгружается.
+     * @param cacheSegments   Ёмкость LRU-кэша прочитанных сегментов.
+     */
+    public HistoryArchive(ObjectStorage storage, int segmentMessages, int batchBytes, int cacheSegments) {
+        this(storage, null, segmentMessages, batchBytes, cacheSegments, 64L * 1024 * 1024, Duration.ofSeconds(5));
+    }
+
+    /**
+     * @param storage         Холодное хранилище пакетов.
+     * @param spill           Локальное хранилище для пакетов сверх лимита или null.
+     * @param segmentMessages Количество сообщений, после которого сегмент комнаты закрывается.
+     * @param batchBytes      Размер пакета (сжатых байтов), после которого он выгружается.
+     * @param cacheSegments   Ёмкость LRU-кэша прочитанных сегментов.
+     * @param maxPendingBytes Лимит невыгруженных пакетов в памяти.
+     * @param ioTimeout       Таймаут чтения из хранилища и ожидания выгрузки при остановке.
+     */
+    public HistoryArchive(ObjectStorage storage, ObjectStorage spill, int segmentMessages, int batchBytes,
+                          int cacheSegments, long maxPendingBytes, Duration ioTimeout) {
+        this.storage = storage;
+        this.spill = spill;
+        this.segmentMessages = segmentMessages;
+        this.batchBytes = batchBytes;
+        this.maxPendingBytes = maxPendingBytes;
+        this.ioTimeout = ioTimeout;
+        this.cache = new SegmentCache(cacheSegments);
+        this.uploadSlots = new Semaphore((int) Math.max(1, Math.min(Integer.MAX_VALUE, maxPendingBytes / batchBytes)));
+    }
+
+    /**
+     * Восстанавливает индекс архивных сегментов и ставит в очередь выгрузки пакеты,
+     * оставшиеся в каталоге сброса. Вызывается один раз до первого {@link #append}.
+     * Обращения к хранилищам ограничены ioTimeout и не выбрасывают исключений:
+     * если холодное хранилище недоступно, история из каталога сброса восстанавливается сразу,
+     * а индекс холодного хранилища загружается в фоне с повторами.
+     */
+    public void restore() {
+        if (spill != null) {
+            try {
+                restoreSpill();
+            } catch (RuntimeException e) {
+                logger.error("Не удалось восстановить пакеты из каталога сброса: {}", e.getMessage());
+            }
+        }
+        restoreIndex(0);
+    }
+
+    private void restoreSpill() {
+        for (String key : await(spill.list(PREFIX))) {
+            if (!key.endsWith(MANIFEST_SUFFIX)) {
+                continue;
+            }
+            String batchKey = batchKey(key);
+            byte[] manifest = await(spill.get(key));
+            merge(decodeManifest(manifest));
+            PendingBatch batch = PendingBatch.spilled(batchKey, manifest);
+            pending.put(batchKey, batch);
+            enqueue(batch);
+        }
+    }
+
+    private void restoreIndex(int attempt) {
+        try {
+            List<ManifestEntry> entries = new ArrayList<>();
+            for (String key : await(storage.list(PREFIX))) {
+                if (key.endsWith(MANIFEST_SUFFIX)) {
+                    entries.addAll(decodeManifest(await(storage.get(key))));
+                }
+            }
+            merge(entries);
+            logger.info("Восстановлено {} сегментов истории из хранилища", entries.size());
+        } catch (RuntimeException e) {
+            long delay = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt, 16));
+            logger.warn("Индекс истории недоступен (попытка {}), повтор через {} мс: {}",
+                    attempt + 1, delay, e.getMessage());
+            if (!retries.isShutdown()) {
+                try {
+                    retries.schedule(() -> restoreIndex(attempt + 1), delay, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException rejected) {
+                    logger.warn("Восстановление индекса истории отменено: архив закрывается");
+                }
+            }
+        }
+    }
+
+    /**
+     * Добавляет в комнаты сегменты из манифестов, пропуская уже известные,
+     * и упорядочивает их по номерам. Безопасно вызывать параллельно с {@link #append}.
+     */
+    private void merge(List<ManifestEntry> entries) {
+        for (ManifestEntry entry : entries) {
+            Room history = rooms.computeIfAbsent(entry.room(), key -> new Room(epoch));
+            synchronized (history) {
+                boolean known = history.archived.stream().anyMatch(segment -> entry.ref().equals(segment.ref));
+                if (!known) {
+                    history.archived.add(new Segment(entry.sequence(), entry.ref()));
+                }
+            }
+        }
+        for (Room history : rooms.values()) {
+            synchronized (history) {
+                history.archived.sort(Comparator.comparingLong(segment -> segment.sequence));
+            }
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        return future.orTimeout(ioTimeout.toMillis(), TimeUnit.MILLISECONDS).join();
+    }
+
+    /**
+     * Добавляет сообщение в историю комнаты.
+     * При заполнении открытого сегмента он сжимается и переносится в текущий пакет.
+     *
+     * @param room    Имя комнаты.
+     * @param message Текст сообщения.
+     * @throws IllegalStateException если каталог сброса не задан, а очередь выгрузки переполнена.
+     */
+    public void append(String room, String message) {
+        if (spill == null && pendingBytes.get() >= maxPendingBytes) {
+            throw new IllegalStateException("Очередь выгрузки истории переполнена: хранилище недоступно");
+        }
+        Room history = rooms.computeIfAbsent(room, key -> new Room(epoch));
+        Segment sealed;
+        synchronized (history) {
+            history.hot.add(message);
+            if (history.hot.size() < segmentMessages) {
+                return;
+            }
+            sealed = history.seal();
+        }
+        archive(room, sealed);
+    }
+
+    /**
+     * Возвращает последние сообщения комнаты в хронологическом порядке.
+     * Недостающие архивные сегменты запрашиваются из хранилища одновременно.
+     *
+     * @param room  Имя комнаты.
+     * @param limit Максимальное количество сообщений.
+     * @return Список сообщений, от старых к новым.
+     * @throws java.util.concurrent.CompletionException если сегмент не удалось прочитать за отведённое время.
+     */
+    public List<String> recent(String room, int limit) {
+        return recentAsync(room, limit).join();
+    }
+
+    /**
+     * Асинхронный вариант {@link #recent}: не блокирует вызывающий поток на чтении из хранилища.
+     *
+     * @param room  Имя комнаты.
+     * @param limit Максимальное количество сообщений.
+     * @return Future со списком сообщений, от старых к новым; завершается ошибкой,
+     *         если сегмент не удалось прочитать за отведённое время.
+     */
+    public CompletableFuture<List<String>> recentAsync(String room, int limit) {
+        Room history = rooms.get(room);
+        if (history == null) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        List<String> hot;
+        List<Segment> archived;
+        synchronized (history) {
+            hot = new ArrayList<>(history.hot);
+            archived = new ArrayList<>(history.archived);
+        }
+
+        List<String> tail = tail(hot, limit);
+        List<CompletableFuture<List<String>>> loads = new ArrayList<>();
+        int needed = limit - tail.size();
+        for (int i = archived.size() - 1; i >= 0 && needed > 0; i--) {
+            Segment segment = archived.get(i);
+            loads.add(0, load(segment));
+            needed -= segment.messageCount();
+        }
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            List<String> result = new ArrayList<>();
+            for (CompletableFuture<List<String>> load : loads) {
+                result.addAll(load.join());
+            }
+            result.addAll(tail);
+            return new ArrayList<>(tail(result, limit));
+        });
+    }
+
+    /**
+     * Выгружает текущий незаполненный пакет.
+     *
+     * @return Future, завершающийся после выгрузки всех ожидающих пакетов.
+     */
+    public CompletableFuture<Void> flush() {
+        PendingBatch detached;
+        synchronized (batchLock) {
+            detached = detach();
+        }
+        if (detached != null) {
+            submit(detached);
+        }
+        return CompletableFuture.allOf(pending.values().stream()
+                .map(batch -> batch.uploaded)
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Закрывает открытые сегменты всех комнат, выгружает пакеты и закрывает хранилища.
+     * Пакеты, не выгруженные за ioTimeout, сбрасываются на локальный диск
+     * и будут выгружены при следующем {@link #restore()}.
+     */
+    @Override
+    public void close() {
+        rooms.forEach((room, history) -> {
+            Segment sealed;
+            synchronized (history) {
+                sealed = history.hot.isEmpty() ? null : history.seal();
+            }
+            if (sealed != null) {
+                archive(room, sealed);
+            }
+        });
+        try {
+            flush().get(ioTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Выгрузка истории не завершилась за {} мс", ioTimeout.toMillis());
+        } catch (Exception e) {
+            logger.error("Ошибка выгрузки истории при остановке: {}", e.getMessage());
+        }
+        closed = true;
+        retries.shutdownNow();
+
+        for (PendingBatch batch : pending.values()) {
+            if (batch.inMemory()) {
+                if (spill == null) {
+                    logger.error("Пакет истории {} не выгружен и будет потерян", batch.key);
+                    continue;
+                }
+                try {
+                    spill(batch).join();
+                } catch (RuntimeException e) {
+                    logger.error("Пакет истории {} не удалось сбросить на диск: {}", batch.key, e.getMessage());
+                }
+            }
+        }
+        storage.close();
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    private void archive(String room, Segment segment) {
+        List<String> messages = segment.messages;
+        byte[] compressed = encode(messages);
+        PendingBatch full = null;
+        synchronized (batchLock) {
+            if (batch == null) {
+                batch = new Batch(String.format("%s%d-%06d", PREFIX, epoch, batchSequence++));
+            }
+            SegmentRef ref = new SegmentRef(batch.key + DATA_SUFFIX, batch.size(), compressed.length, messages.size());
+            batch.write(compressed, 0, compressed.length);
+            batch.entries.add(new ManifestEntry(room, segment.sequence, ref));
+            segment.archived(ref);
+            if (batch.size() >= batchBytes) {
+                full = detach();
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    private PendingBatch detach() {
+        if (batch == null || batch.size() == 0) {
+            return null;
+        }
+        PendingBatch detached = new PendingBatch(batch);
+        pending.put(detached.key, detached);
+        batch = null;
+        return detached;
+    }
+
+    private void submit(PendingBatch batch) {
+        long total = pendingBytes.addAndGet(batch.size);
+        if (spill != null && total > maxPendingBytes) {
+            spill(batch).whenComplete((ignored, error) -> enqueue(batch));
+        } else {
+            enqueue(batch);
+        }
+    }
+
+    private void enqueue(PendingBatch batch) {
+        uploadQueue.add(batch);
+        drain();
+    }
+
+    /**
+     * Запускает выгрузку пакетов из очереди, пока есть свободные слоты.
+     * Во время паузы после ошибки новые выгрузки не начинаются.
+     */
+    private void drain() {
+        while (!closed && !retryScheduled.get() && !uploadQueue.isEmpty() && uploadSlots.tryAcquire()) {
+            PendingBatch next = uploadQueue.poll();
+            if (next == null) {
+                uploadSlots.release();
+                return;
+            }
+            upload(next);
+        }
+    }
+
+    private void upload(PendingBatch batch) {
+        CompletableFuture.completedFuture(batch.data())
+                .thenCompose(bytes -> bytes != null
+                        ? CompletableFuture.completedFuture(bytes)
+                        : spill.get(batch.key + DATA_SUFFIX))
+                .thenCompose(bytes -> storage.put(batch.key + DATA_SUFFIX, bytes))
+                .thenCompose(ignored -> storage.put(batch.key + MANIFEST_SUFFIX, batch.manifest))
+                .whenComplete((ignored, error) -> {
+                    uploadSlots.release();
+                    if (error == null) {
+                        uploadFailures.set(0);
+                        uploaded(batch);
+                    } else {
+                        uploadQueue.addFirst(batch);
+                        pause(batch, error);
+                    }
+                    drain();
+                });
+    }
+
+    private void uploaded(PendingBatch batch) {
+        pending.remove(batch.key);
+        boolean spilled;
+        synchronized (batch) {
+            batch.done = true;
+            spilled = batch.spilled;
+            if (batch.release()) {
+                pendingBytes.addAndGet(-batch.size);
+            }
+        }
+        if (spilled) {
+            spill.delete(batch.key + DATA_SUFFIX);
+            spill.delete(batch.key + MANIFEST_SUFFIX);
+        }
+        batch.uploaded.complete(null);
+        logger.info("Пакет истории {} выгружен ({} байт)", batch.key, batch.size);
+    }
+
+    private void pause(PendingBatch batch, Throwable error) {
+        int attempt = uploadFailures.getAndIncrement();
+        long delay = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt, 16));
+        logger.warn("Ошибка выгрузки пакета истории {} (попытка {}), повтор через {} мс: {}",
+                batch.key, attempt + 1, delay, error.getMessage());
+        if (!retryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            retries.schedule(() -> {
+                retryScheduled.set(false);
+                drain();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            retryScheduled.set(false);
+            logger.warn("Повтор выгрузки истории отменён: архив закрывается");
+        }
+    }
+
+    private CompletableFuture<Void> spill(PendingBatch batch) {
+        return CompletableFuture.completedFuture(batch)
+                .thenApply(PendingBatch::data)
+                .thenCompose(data -> data == null
+                        ? CompletableFuture.completedFuture(null)
+                        : spill.put(batch.key + DATA_SUFFIX, data))
+                .thenCompose(ignored -> spill.put(batch.key + MANIFEST_SUFFIX, batch.manifest))
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        logger.error("Ошибка сброса пакета истории {} на диск: {}", batch.key, error.getMessage());
+                        return;
+                    }
+                    boolean done;
+                    synchronized (batch) {
+                        done = batch.done;
+                        if (!done) {
+                            batch.spilled = true;
+                            if (batch.release()) {
+                                pendingBytes.addAndGet(-batch.size);
+                            }
+                        }
+                    }
+                    if (done) {
+                        spill.delete(batch.key + DATA_SUFFIX);
+                        spill.delete(batch.key + MANIFEST_SUFFIX);
+                    } else {
+                        logger.warn("Пакет истории {} сброшен на диск до восстановления хранилища", batch.key);
+                    }
+                });
+    }
+
+    private CompletableFuture<List<String>> load(Segment segment) {
+        List<String> messages = segment.messages;
+        if (messages != null) {
+            return CompletableFuture.completedFuture(messages);
+        }
+        SegmentRef ref = segment.ref;
+        List<String> cached = cache.get(ref);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return read(ref).thenApply(bytes -> {
+            List<String> decoded = decode(bytes);
+            cache.put(ref, decoded);
+            return decoded;
+        });
+    }
+
+    private CompletableFuture<byte[]> read(SegmentRef ref) {
+        String key = batchKey(ref.objectKey());
+        int from = (int) ref.offset();
+        synchronized (batchLock) {
+            if (batch != null && batch.key.equals(key)) {
+                return CompletableFuture.completedFuture(batch.slice(from, ref.length()));
+            }
+        }
+        PendingBatch waiting = pending.get(key);
+        if (waiting != null) {
+            byte[] slice = waiting.slice(from, ref.length());
+            if (slice != null) {
+                return CompletableFuture.completedFuture(slice);
+            }
+            if (waiting.spilled) {
+                return spill.getRange(ref.objectKey(), ref.offset(), ref.length())
+                        .exceptionallyCompose(error -> storage.getRange(ref.objectKey(), ref.offset(), ref.length()))
+                        .orTimeout(ioTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        return storage.getRange(ref.objectKey(), ref.offset(), ref.length())
+                .orTimeout(ioTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static String batchKey(String objectKey) {
+        return objectKey.substring(0, objectKey.lastIndexOf('.'));
+    }
+
+    private static byte[] encode(List<String> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            out.writeInt(messages.size());
+            for (String message : messages) {
+                writeString(out, message);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка сжатия сегмента истории", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String> decode(byte[] compressed) {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed)))) {
+            int count = in.readInt();
+            List<String> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                messages.add(readString(in));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка распаковки сегмента истории", e);
+        }
+    }
+
+    private static byte[] encodeManifest(List<ManifestEntry> entries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entries.size());
+            for (ManifestEntry entry : entries) {
+                writeString(out, entry.room());
+                out.writeLong(entry.sequence());
+                writeString(out, entry.ref().objectKey());
+                out.writeLong(entry.ref().offset());
+                out.writeInt(entry.ref().length());
+                out.writeInt(entry.ref().messageCount());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи манифеста истории", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<ManifestEntry> decodeManifest(byte[] manifest) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(manifest))) {
+            int count = in.readInt();
+            List<ManifestEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String room = readString(in);
+                long sequence = in.readLong();
+                SegmentRef ref = new SegmentRef(readString(in), in.readLong(), in.readInt(), in.readInt());
+                entries.add(new ManifestEntry(room, sequence, ref));
+            }
+            return entries;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка чтения манифеста истории", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> tail(List<String> messages, int limit) {
+        return messages.subList(Math.max(0, messages.size() - limit), messages.size());
+    }
+
+    /**
+     * Запись манифеста пакета: к какой комнате относится сегмент и где он лежит.
+     */
+    private record ManifestEntry(String room, long sequence, SegmentRef ref) {
+    }
+
+    /**
+     * История одной комнаты: горячий хвост и закрытые сегменты в порядке номеров.
+     * Номера сегментов начинаются с времени запуска, умноженного на миллион,
+     * поэтому сегменты нового запуска всегда идут после восстановленных,
+     * даже если индекс холодного хранилища загрузится позже.
+     * Все поля защищены монитором самой комнаты.
+     */
+    private static class Room {
+        private List<String> hot = new ArrayList<>();
+        private final List<Segment> archived = new ArrayList<>();
+        private long nextSequence;
+
+        private Room(long epoch) {
+            this.nextSequence = epoch * 1_000_000;
+        }
+
+        private Segment seal() {
+            Segment segment = new Segment(nextSequence++, hot);
+            archived.add(segment);
+            hot = new ArrayList<>();
+            return segment;
+        }
+    }
+
+    /**
+     * Закрытый сегмент комнаты. До записи в пакет хранит сообщения,
+     * после — только ссылку на сжатые байты.
+     */
+    private static class Segment {
+        private final long sequence;
+        private volatile List<String> messages;
+        private volatile SegmentRef ref;
+
+        private Segment(long sequence, List<String> messages) {
+            this.sequence = sequence;
+            this.messages = messages;
+        }
+
+        private Segment(long sequence, SegmentRef ref) {
+            this.sequence = sequence;
+            this.ref = ref;
+        }
+
+        private void archived(SegmentRef ref) {
+            this.ref = ref;
+            this.messages = null;
+        }
+
+        private int messageCount() {
+            List<String> current = messages;
+            return current != null ? current.size() : ref.messageCount();
+        }
+    }
+
+    /**
+     * Накапливаемый пакет сжатых сегментов с доступом к внутреннему буферу без копирования.
+     */
+    private static class Batch extends ByteArrayOutputStream {
+        private final String key;
+        private final List<ManifestEntry> entries = new ArrayList<>();
+
+        private Batch(String key) {
+            this.key = key;
+        }
+
+        private synchronized byte[] slice(int offset, int length) {
+            return Arrays.copyOfRange(buf, offset, offset + length);
+        }
+    }
+
+    /**
+     * Пакет, ожидающий выгрузки. Данные находятся в памяти, пока пакет
+     * не выгружен или не сброшен в локальный каталог.
+     * При первом обращении к данным буфер копируется в массив точного размера один раз,
+     * и этот массив используется и для выгрузки, и для сброса на диск.
+     */
+    private static class PendingBatch {
+        private final String key;
+        private final byte[] manifest;
+        private final long size;
+        private final CompletableFuture<Void> uploaded = new CompletableFuture<>();
+        private Batch memory;
+        private byte[] frozen;
+        private volatile boolean spilled;
+        private boolean done;
+
+        private PendingBatch(Batch batch) {
+            this.key = batch.key;
+            this.manifest = encodeManifest(batch.entries);
+            this.size = batch.size();
+            this.memory = batch;
+        }
+
+        private PendingBatch(String key, byte[] manifest) {
+            this.key = key;
+            this.manifest = manifest;
+            this.size = 0;
+        }
+
+        private static PendingBatch spilled(String key, byte[] manifest) {
+            PendingBatch batch = new PendingBatch(key, manifest);
+            batch.spilled = true;
+            return batch;
+        }
+
+        private synchronized boolean inMemory() {
+            return memory != null || frozen != null;
+        }
+
+        private synchronized byte[] data() {
+            if (frozen == null && memory != null) {
+                frozen = memory.toByteArray();
+                memory = null;
+            }
+            return frozen;
+        }
+
+        private synchronized byte[] slice(int offset, int length) {
+            if (frozen != null) {
+                return Arrays.copyOfRange(frozen, offset, offset + length);
+            }
+            return memory == null ? null : memory.slice(offset, length);
+        }
+
+        /**
+         * Освобождает данные в памяти.
+         *
+         * @return true, если данные были в памяти и учитывались в лимите.
+         */
+        private synchronized boolean release() {
+            boolean wasInMemory = inMemory();
+            memory = null;
+            frozen = null;
+            return wasInMemory;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package history;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * Настройки архива истории, загружаемые из config.properties.
+ * Параметр history.storage выбирает холодное хранилище:
+ *  - fs — каталог на локальном диске (history.fs.dir);
+ *  - s3 — S3 или S3-совместимый сервис (history.s3.*).
+ * Пакеты, которые не удаётся выгрузить сверх лимита history.pending.bytes,
+ * сбрасываются в каталог history.spill.dir.
+ * Каталоги по умолчанию находятся в ~/.websocket-chat, вне target/,
+ * чтобы mvn clean не удалял архив и невыгруженные пакеты.
+ * Любое свойство можно переопределить системным свойством JVM с тем же именем.
+ */
+public class HistoryConfig {
+    private static final Properties props = new Properties();
+
+    static {
+        try (InputStream input = HistoryConfig.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (input != null) {
+                props.load(input);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Ошибка загрузки конфига истории", e);
+        }
+    }
+
+    /**
+     * Создаёт архив истории согласно настройкам и восстанавливает индекс уже выгруженных сегментов.
+     *
+     * @return Архив с выбранным холодным хранилищем.
+     */
+    public static HistoryArchive createArchive() {
+        HistoryArchive archive = new HistoryArchive(
+                createStorage(),
+                new FileSystemObjectStorage(getPath("history.spill.dir", "history-spill")),
+                getInt("history.segment.messages", 500),
+                getInt("history.batch.bytes", 8 * 1024 * 1024),
+                getInt("history.cache.segments", 32),
+                getLong("history.pending.bytes", 64L * 1024 * 1024),
+                Duration.ofMillis(getLong("history.io.timeout.ms", 5000))
+        );
+        archive.restore();
+        return archive;
+    }
+
+    private static ObjectStorage createStorage() {
+        String type = get("history.storage", "fs");
+        switch (type) {
+            case "fs":
+                return new FileSystemObjectStorage(getPath("history.fs.dir", "history"));
+            case "s3":
+                return S3ObjectStorage.create(
+                        get("history.s3.endpoint", null),
+                        get("history.s3.region", "us-east-1"),
+                        get("history.s3.bucket", "chat-history"),
+                        get("history.s3.access.key", null),
+                        get("history.s3.secret.key", null),
+                        getInt("history.s3.part.bytes", 8 * 1024 * 1024)
+                );
+            default:
+                throw new IllegalArgumentException("Неизвестный тип хранилища истории: " + type);
+        }
+    }
+
+    private static String get(String key, String defaultValue) {
+        return System.getProperty(key, props.getProperty(key, defaultValue));
+    }
+
+    private static Path getPath(String key, String defaultName) {
+        String value = get(key, null);
+        return value == null || value.isBlank()
+                ? Path.of(System.getProperty("user.home"), ".websocket-chat", defaultName)
+                : Path.of(value.trim());
+    }
+
+    private static int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    private static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+    }
+}
@@ -0,0 +1,62 @@
+package history;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Холодное хранилище объектов для архива истории чата.
+ * Абстрагирует S3-совместимое хранилище, чтобы архив можно было
+ * проверять на файловой системе без внешних сервисов.
+ * Все операции асинхронные и не блокируют вызывающий поток.
+ */
+public interface ObjectStorage extends AutoCloseable {
+
+    /**
+     * Загружает объект целиком.
+     *
+     * @param key  Ключ объекта.
+     * @param data Содержимое объекта.
+     * @return Future, завершающийся после успешной загрузки.
+     */
+    CompletableFuture<Void> put(String key, byte[] data);
+
+    /**
+     * Читает диапазон байтов объекта.
+     *
+     * @param key    Ключ объекта.
+     * @param offset Смещение первого байта.
+     * @param length Количество байтов.
+     * @return Future с прочитанными байтами.
+     */
+    CompletableFuture<byte[]> getRange(String key, long offset, int length);
+
+    /**
+     * Читает объект целиком.
+     *
+     * @param key Ключ объекта.
+     * @return Future с содержимым объекта.
+     */
+    CompletableFuture<byte[]> get(String key);
+
+    /**
+     * Перечисляет ключи объектов с указанным префиксом.
+     *
+     * @param prefix Префикс ключа, например "history/".
+     * @return Future со списком ключей.
+     */
+    CompletableFuture<List<String>> list(String prefix);
+
+    /**
+     * Удаляет объект. Отсутствие объекта ошибкой не считается.
+     *
+     * @param key Ключ объекта.
+     * @return Future, завершающийся после удаления.
+     */
+    CompletableFuture<Void> delete(String key);
+
+    /**
+     * Освобождает ресурсы хранилища (клиенты, пулы потоков).
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,121 @@
+package history;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.multipart.MultipartConfiguration;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Хранилище объектов в S3 или S3-совместимом сервисе (MinIO, LocalStack).
+ * Работает через асинхронный клиент SDK с включённой multipart-загрузкой:
+ * пакеты крупнее размера части автоматически разбиваются на части
+ * и загружаются параллельно.
+ * Чтение старой истории выполняется ranged GET-запросами,
+ * поэтому из пакета скачивается только нужный сегмент.
+ */
+public class S3ObjectStorage implements ObjectStorage {
+    private final S3AsyncClient client;
+    private final String bucket;
+
+    public S3ObjectStorage(S3AsyncClient client, String bucket) {
+        this.client = client;
+        this.bucket = bucket;
+    }
+
+    /**
+     * Создаёт хранилище с клиентом, настроенным на multipart-загрузку.
+     *
+     * @param endpoint  Адрес S3-совместимого сервиса или null для AWS.
+     * @param region    Регион.
+     * @param bucket    Имя бакета.
+     * @param accessKey Ключ доступа или null для цепочки учётных данных по умолчанию.
+     * @param secretKey Секретный ключ.
+     * @param partBytes Размер части multipart-загрузки (не меньше 5 МБ).
+     * @return Настроенное хранилище.
+     */
+    public static S3ObjectStorage create(String endpoint, String region, String bucket,
+                                         String accessKey, String secretKey, long partBytes) {
+        AwsCredentialsProvider credentials = isBlank(accessKey)
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+
+        S3AsyncClientBuilder builder = S3AsyncClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentials)
+                .multipartEnabled(true)
+                .multipartConfiguration(MultipartConfiguration.builder()
+                        .thresholdInBytes(partBytes)
+                        .minimumPartSizeInBytes(partBytes)
+                        .build());
+        if (!isBlank(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint)).forcePathStyle(true);
+        }
+        return new S3ObjectStorage(builder.build(), bucket);
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, byte[] data) {
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType("application/octet-stream")
+                .build();
+        return client.putObject(request, AsyncRequestBody.fromBytes(data)).thenApply(response -> null);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .range("bytes=" + offset + "-" + (offset + length - 1))
+                .build();
+        return client.getObject(request, AsyncResponseTransformer.toBytes()).thenApply(ResponseBytes::asByteArray);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> get(String key) {
+        GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key).build();
+        return client.getObject(request, AsyncResponseTransformer.toBytes()).thenApply(ResponseBytes::asByteArray);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> list(String prefix) {
+        ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix).build();
+        List<String> keys = new ArrayList<>();
+        return client.listObjectsV2Paginator(request).contents()
+                .subscribe(object -> keys.add(object.key()))
+                .thenApply(ignored -> keys);
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String key) {
+        DeleteObjectRequest request = DeleteObjectRequest.builder().bucket(bucket).key(key).build();
+        return client.deleteObject(request).thenApply(response -> null);
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,35 @@
+package history;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU-кэш распакованных сегментов, прочитанных из холодного хранилища.
+ * Ограничен количеством сегментов, поэтому занимаемая память не превышает
+ * capacity * (размер сегмента) сообщений независимо от объёма архива.
+ */
+public class SegmentCache {
+    private final Map<SegmentRef, List<String>> segments;
+
+    public SegmentCache(int capacity) {
+        this.segments = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SegmentRef, List<String>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized List<String> get(SegmentRef ref) {
+        return segments.get(ref);
+    }
+
+    public synchronized void put(SegmentRef ref, List<String> messages) {
+        segments.put(ref, messages);
+    }
+
+    public synchronized int size() {
+        return segments.size();
+    }
+}
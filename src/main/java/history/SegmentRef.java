@@ -0,0 +1,12 @@
+package history;
+
+/**
+ * Ссылка на закрытый сегмент истории внутри пакетного объекта хранилища.
+ *
+ * @param objectKey    Ключ пакетного объекта, в который записан сегмент.
+ * @param offset       Смещение сжатого сегмента внутри объекта.
+ * @param length       Длина сжатого сегмента в байтах.
+ * @param messageCount Количество сообщений в сегменте.
+ */
+public record SegmentRef(String objectKey, long offset, int length, int messageCount) {
+}
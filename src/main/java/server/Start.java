@@ -1,12 +1,27 @@
 package server;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * Запускает сервер WebSocket.
  * Порт, на котором будет слушать сервер.
+ * При завершении процесса (в том числе по SIGTERM) сервер останавливается,
+ * чтобы история сообщений была выгружена в хранилище.
  */
 public class Start {
+    private static final Logger logger = LoggerFactory.getLogger(Start.class);
+
     public static void main(String[] args) throws Exception {
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 1401;
-        new WebSocketServer(port).start();
+        WebSocketServer server = new WebSocketServer(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (Exception e) {
+                logger.error("Ошибка остановки сервера: {}", e.getMessage());
+            }
+        }, "chat-shutdown"));
+        server.start();
     }
 }
@@ -1,10 +1,12 @@
 package server;
 
+import history.HistoryArchive;
 import org.eclipse.jetty.websocket.api.Session;
 import org.eclipse.jetty.websocket.api.annotations.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -16,12 +18,22 @@ import java.util.concurrent.ConcurrentHashMap;
  *  - Рассылка публичных и приватных сообщений
  *  - Контроль состояния сессий
  *  - Обработка ошибок соединения
+ *  - Сохранение и выдача истории комнаты (команда HISTORY:количество)
  * Использует, потокобезопасную ConcurrentHashMap для хранения активных сессий.
  */
 @WebSocket
 public class WebSocketHandler {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketHandler.class);
     private static final Map<String, Session> userSessions = new ConcurrentHashMap<>();
+    private static final String DEFAULT_ROOM = "public";
+    private static final int DEFAULT_HISTORY_LIMIT = 50;
+    private static final int MAX_HISTORY_LIMIT = 500;
+
+    private final HistoryArchive history;
+
+    public WebSocketHandler(HistoryArchive history) {
+        this.history = history;
+    }
 
     /**
      * Обрабатывает входящее WebSocket-соединение.
@@ -48,9 +60,16 @@ public class WebSocketHandler {
     public void onMessage(Session session, String message) {
         if (message.startsWith("LOGIN:")) {
             handleLogin(session, message);
+        } else if (message.startsWith("HISTORY:")) {
+            handleHistory(session, message);
         } else {
             String user = getUser(session);
             if (user != null) {
+                try {
+                    history.append(getRoom(session), user + ": " + message);
+                } catch (IllegalStateException e) {
+                    logger.error("Сообщение не сохранено в истории: {}", e.getMessage());
+                }
                 broadcast(user + ": " + message, session);
             }
         }
@@ -108,6 +127,49 @@ public class WebSocketHandler {
         logger.info("Пользователь {} авторизован", username);
     }
 
+    /**
+     * Отправляет клиенту последние сообщения его комнаты.
+     * Доступно только авторизованным пользователям.
+     * Старые сообщения читаются из архива асинхронно: поток Jetty не ждёт холодное хранилище,
+     * ответ отправляется по завершении чтения.
+     *
+     * @param session Сессия WebSocket, представляющая соединение с клиентом.
+     * @param message Команда вида HISTORY:количество.
+     */
+    private void handleHistory(Session session, String message) {
+        if (getUser(session) == null) {
+            sendError(session, "Требуется авторизация: LOGIN:ваш_логин");
+            return;
+        }
+        int limit;
+        try {
+            String value = message.split(":", 2)[1].trim();
+            limit = value.isEmpty() ? DEFAULT_HISTORY_LIMIT : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            sendError(session, "Неверный формат запроса истории");
+            return;
+        }
+        if (limit <= 0 || limit > MAX_HISTORY_LIMIT) {
+            sendError(session, "Количество сообщений должно быть от 1 до " + MAX_HISTORY_LIMIT);
+            return;
+        }
+
+        history.recentAsync(getRoom(session), limit).whenComplete((messages, error) -> {
+            if (error != null) {
+                logger.error("Ошибка чтения истории: {}", error.getMessage());
+                sendError(session, "История временно недоступна");
+                return;
+            }
+            try {
+                for (String entry : messages) {
+                    session.getRemote().sendString("HISTORY: " + entry);
+                }
+            } catch (IOException e) {
+                logger.error("Ошибка отправки истории: {}", e.getMessage());
+            }
+        });
+    }
+
     /**
      * Обрабатывает отправку личного сообщения.
      *
@@ -211,6 +273,17 @@ public class WebSocketHandler {
         }
     }
 
+    /**
+     * Получает комнату, указанную клиентом в параметре room при подключении.
+     *
+     * @param session Сессия WebSocket, представляющая соединение с клиентом.
+     * @return Имя комнаты или "public", если параметр не передан.
+     */
+    private String getRoom(Session session) {
+        List<String> rooms = session.getUpgradeRequest().getParameterMap().get("room");
+        return rooms == null || rooms.isEmpty() || rooms.get(0).isBlank() ? DEFAULT_ROOM : rooms.get(0);
+    }
+
     /**
      * Получает имя пользователя, связанное с данной сессией.
      *
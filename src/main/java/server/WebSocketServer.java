@@ -1,5 +1,7 @@
 package server;
 
+import history.HistoryArchive;
+import history.HistoryConfig;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.HandlerList;
@@ -14,12 +16,19 @@ import java.net.URISyntaxException;
 /**
  * Класс WebSocketServer отвечает за создание и запуск WebSocket-сервера.
  * Сервер принимает подключения клиентов и обрабатывает WebSocket-соединения.
+ * История комнат хранится в {@link HistoryArchive}, общем для всех соединений.
  */
 public class WebSocketServer {
     private final Server server;
+    private final HistoryArchive history;
 
     public WebSocketServer(int port) throws URISyntaxException {
+        this(port, HistoryConfig.createArchive());
+    }
+
+    public WebSocketServer(int port, HistoryArchive history) throws URISyntaxException {
         this.server = new Server(port);
+        this.history = history;
 
         ResourceHandler resourceHandler = new ResourceHandler();
         resourceHandler.setDirectoriesListed(false);
@@ -32,7 +41,7 @@ public class WebSocketServer {
         wsHandler.addServlet(new ServletHolder(new WebSocketServlet() {
             @Override
             public void configure(WebSocketServletFactory factory) {
-                factory.register(WebSocketHandler.class);
+                factory.setCreator((request, response) -> new WebSocketHandler(history));
             }
         }), "/chat");
 
@@ -46,6 +55,10 @@ public class WebSocketServer {
     }
 
     public void stop() throws Exception {
-        server.stop();
+        try {
+            server.stop();
+        } finally {
+            history.close();
+        }
     }
 }
\ No newline at end of file
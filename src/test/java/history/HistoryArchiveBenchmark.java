@@ -0,0 +1,125 @@
+package history;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Замер эффекта архива истории:
+ *  - heap: вся история в памяти против горячего хвоста с архивом;
+ *  - диск: исходный объём сообщений против сжатых пакетов;
+ *  - задержка чтения старой истории без кэша и из кэша.
+ * По умолчанию хранилище — каталог на локальном диске, и чтение «без кэша» идёт
+ * из кэша страниц ОС сразу после выгрузки, то есть это задержка локального диска.
+ * С -Dhistory.s3.endpoint (и при необходимости history.s3.bucket, history.s3.access.key,
+ * history.s3.secret.key) замер выполняется на S3-совместимом хранилище, например MinIO.
+ * Запускается из IDE как обычный main; аргументы — число сообщений и комнат.
+ */
+public class HistoryArchiveBenchmark {
+    private static final String[] WORDS = {
+            "привет", "как", "дела", "сегодня", "релиз", "тесты", "сервер", "комната",
+            "сообщение", "история", "hello", "deploy", "build", "ok", "спасибо", "завтра"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int segmentMessages = 500;
+
+        long rawBytes = 0;
+        Random random = new Random(42);
+        for (int i = 0; i < messages; i++) {
+            rawBytes += nextMessage(random).getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        long baseHeap = usedHeap();
+        Map<String, List<String>> plain = new HashMap<>();
+        random = new Random(42);
+        for (int i = 0; i < messages; i++) {
+            plain.computeIfAbsent("room-" + i % rooms, key -> new ArrayList<>()).add(nextMessage(random));
+        }
+        long plainHeap = usedHeap() - baseHeap;
+        plain = null;
+
+        String endpoint = System.getProperty("history.s3.endpoint");
+        Path dir = endpoint == null ? Files.createTempDirectory("chat-history-bench") : null;
+        ObjectStorage storage = endpoint == null
+                ? new FileSystemObjectStorage(dir)
+                : S3ObjectStorage.create(
+                        endpoint,
+                        System.getProperty("history.s3.region", "us-east-1"),
+                        System.getProperty("history.s3.bucket", "chat-history"),
+                        System.getProperty("history.s3.access.key"),
+                        System.getProperty("history.s3.secret.key"),
+                        8 * 1024 * 1024);
+        baseHeap = usedHeap();
+        HistoryArchive archive = new HistoryArchive(storage, segmentMessages, 8 * 1024 * 1024, 64);
+        random = new Random(42);
+        for (int i = 0; i < messages; i++) {
+            archive.append("room-" + i % rooms, nextMessage(random));
+        }
+        archive.flush().join();
+        long archiveHeap = usedHeap() - baseHeap;
+        long diskBytes = dir == null ? -1 : directorySize(dir);
+
+        int depth = segmentMessages * 4;
+        long coldNanos = 0;
+        long warmNanos = 0;
+        for (int r = 0; r < rooms; r++) {
+            long start = System.nanoTime();
+            archive.recent("room-" + r, depth);
+            coldNanos += System.nanoTime() - start;
+        }
+        for (int r = 0; r < rooms; r++) {
+            long start = System.nanoTime();
+            archive.recent("room-" + r, depth);
+            warmNanos += System.nanoTime() - start;
+        }
+        archive.close();
+
+        System.out.printf("Хранилище: %s%n", endpoint == null ? "локальный диск " + dir : "S3 " + endpoint);
+        System.out.printf("Сообщений: %d, комнат: %d, сегмент: %d сообщений%n", messages, rooms, segmentMessages);
+        System.out.printf("Heap: вся история в памяти %.1f МБ, архив %.1f МБ%n", mb(plainHeap), mb(archiveHeap));
+        if (diskBytes > 0) {
+            System.out.printf("Диск: исходные данные %.1f МБ, пакеты %.1f МБ (x%.1f)%n",
+                    mb(rawBytes), mb(diskBytes), (double) rawBytes / diskBytes);
+        }
+        System.out.printf("Чтение %d сообщений без кэша: %.2f мс на запрос%n", depth, coldNanos / 1e6 / rooms);
+        System.out.printf("Чтение %d сообщений из кэша: %.3f мс на запрос%n", depth, warmNanos / 1e6 / rooms);
+    }
+
+    private static String nextMessage(Random random) {
+        StringBuilder text = new StringBuilder("User").append(random.nextInt(200)).append(':');
+        int words = 3 + random.nextInt(12);
+        for (int w = 0; w < words; w++) {
+            text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long directorySize(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,519 @@
+package history;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Класс HistoryArchiveTests проверяет многоуровневое хранение истории комнат:
+ * закрытие сегментов, пакетную выгрузку в хранилище и чтение старой истории через LRU-кэш.
+ * По умолчанию хранилищем служит каталог на файловой системе.
+ * Тест с S3 запускается только при указании -Dhistory.s3.endpoint (например, локальный MinIO).
+ */
+public class HistoryArchiveTests {
+    private static final String ROOM = "public";
+
+    @TempDir
+    Path dir;
+
+    @TempDir
+    Path spillDir;
+
+    private CountingStorage storage;
+    private HistoryArchive archive;
+
+    @BeforeEach
+    void setup() {
+        storage = new CountingStorage(new FileSystemObjectStorage(dir));
+        archive = new HistoryArchive(storage, 10, 256, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        archive.close();
+    }
+
+    @Test
+    @DisplayName("Последние сообщения собираются из горячего хвоста и архивных сегментов по порядку")
+    void testRecentSpansHotAndArchivedSegments() {
+        appendMessages(ROOM, 45);
+
+        assertThat(archive.recent(ROOM, 5)).containsExactlyElementsOf(messages(40, 45));
+        assertThat(archive.recent(ROOM, 23)).containsExactlyElementsOf(messages(22, 45));
+        assertThat(archive.recent(ROOM, 1000)).containsExactlyElementsOf(messages(0, 45));
+    }
+
+    @Test
+    @DisplayName("Закрытые сегменты выгружаются крупными пакетами, а не по одному")
+    void testSegmentsUploadedInBatches() throws IOException {
+        appendMessages(ROOM, 200);
+        archive.flush().join();
+
+        assertThat(files(dir, ".seg")).isPositive().isLessThan(20);
+        assertThat(files(dir, ".idx")).isEqualTo(files(dir, ".seg"));
+        assertThat(files(dir, "")).isEqualTo(storage.puts.get());
+    }
+
+    @Test
+    @DisplayName("Старая история читается из хранилища, повторные чтения обслуживает кэш")
+    void testColdReadsGoThroughCache() {
+        appendMessages(ROOM, 30);
+        archive.flush().join();
+
+        assertThat(archive.recent(ROOM, 20)).containsExactlyElementsOf(messages(10, 30));
+        assertThat(storage.reads.get()).isEqualTo(2);
+
+        assertThat(archive.recent(ROOM, 20)).containsExactlyElementsOf(messages(10, 30));
+        assertThat(storage.reads.get()).isEqualTo(2);
+
+        assertThat(archive.recent(ROOM, 30)).containsExactlyElementsOf(messages(0, 30));
+        assertThat(storage.reads.get()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("История одной комнаты не попадает в другую")
+    void testRoomsAreIsolated() {
+        appendMessages(ROOM, 25);
+        archive.append("private", "Secret message");
+        archive.flush().join();
+
+        assertThat(archive.recent("private", 100)).containsExactly("Secret message");
+        assertThat(archive.recent(ROOM, 100)).containsExactlyElementsOf(messages(0, 25));
+        assertThat(archive.recent("unknown", 100)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("После перезапуска история, включая незакрытый хвост, читается из хранилища")
+    void testHistoryRestoredAfterRestart() {
+        appendMessages(ROOM, 45);
+        archive.append("private", "Secret message");
+        archive.close();
+
+        archive = new HistoryArchive(new FileSystemObjectStorage(dir), 10, 256, 2);
+        archive.restore();
+        assertThat(archive.recent(ROOM, 100)).containsExactlyElementsOf(messages(0, 45));
+        assertThat(archive.recent("private", 100)).containsExactly("Secret message");
+
+        archive.append(ROOM, "Message 45");
+        assertThat(archive.recent(ROOM, 3)).containsExactlyElementsOf(messages(43, 46));
+    }
+
+    @Test
+    @DisplayName("Неудачная выгрузка пакета повторяется, пока хранилище не станет доступным")
+    void testFailedUploadIsRetried() {
+        FlakyStorage flaky = new FlakyStorage(new FileSystemObjectStorage(dir), 2);
+        try (HistoryArchive retrying = new HistoryArchive(flaky, 10, 1024, 2)) {
+            IntStream.range(0, 30).forEach(i -> retrying.append(ROOM, "Message " + i));
+            retrying.flush().orTimeout(10, TimeUnit.SECONDS).join();
+
+            assertThat(flaky.failures.get()).isEqualTo(2);
+            assertThat(files(dir, ".seg")).isEqualTo(1);
+            assertThat(retrying.recent(ROOM, 30)).containsExactlyElementsOf(messages(0, 30));
+        }
+    }
+
+    @Test
+    @DisplayName("Пакеты сверх лимита сбрасываются на диск и выгружаются после перезапуска")
+    void testPendingOverLimitSpillsToDiskAndUploadsOnRestore() {
+        HistoryArchive offline = new HistoryArchive(new FailingStorage(), new FileSystemObjectStorage(spillDir),
+                10, 256, 2, 1, Duration.ofMillis(500));
+        IntStream.range(0, 60).forEach(i -> offline.append(ROOM, "Message " + i));
+        offline.flush();
+
+        awaitFiles(spillDir, ".seg");
+        assertThat(offline.recent(ROOM, 60)).containsExactlyElementsOf(messages(0, 60));
+        offline.close();
+        assertThat(files(spillDir, ".seg")).isPositive();
+
+        archive = new HistoryArchive(storage, new FileSystemObjectStorage(spillDir), 10, 256, 2, 1, Duration.ofSeconds(5));
+        archive.restore();
+        archive.flush().orTimeout(10, TimeUnit.SECONDS).join();
+
+        assertThat(files(dir, ".seg")).isPositive();
+        assertThat(archive.recent(ROOM, 60)).containsExactlyElementsOf(messages(0, 60));
+    }
+
+    @Test
+    @DisplayName("Недоступное хранилище при запуске не мешает восстановить историю из каталога сброса")
+    void testRestoreWithUnavailableStorageUsesSpill() {
+        HistoryArchive offline = new HistoryArchive(new FailingStorage(), new FileSystemObjectStorage(spillDir),
+                10, 256, 2, 1, Duration.ofMillis(500));
+        IntStream.range(0, 45).forEach(i -> offline.append(ROOM, "Message " + i));
+        offline.close();
+        assertThat(files(spillDir, ".seg")).isPositive();
+
+        try (HistoryArchive restarted = new HistoryArchive(new FailingStorage(), new FileSystemObjectStorage(spillDir),
+                10, 256, 2, 1, Duration.ofMillis(500))) {
+            restarted.restore();
+            assertThat(restarted.recent(ROOM, 100)).containsExactlyElementsOf(messages(0, 45));
+
+            restarted.append(ROOM, "Message 45");
+            assertThat(restarted.recent(ROOM, 2)).containsExactlyElementsOf(messages(44, 46));
+        }
+    }
+
+    @Test
+    @DisplayName("Зависшее хранилище при запуске не блокирует restore дольше таймаута")
+    void testRestoreWithStalledStorageIsBounded() {
+        ObjectStorage stalled = new DelegatingStorage(new FileSystemObjectStorage(dir)) {
+            @Override
+            public CompletableFuture<List<String>> list(String prefix) {
+                return new CompletableFuture<>();
+            }
+        };
+        try (HistoryArchive restarted = new HistoryArchive(stalled, null, 10, 256, 2, 1024, Duration.ofMillis(300))) {
+            long start = System.nanoTime();
+            restarted.restore();
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+        }
+    }
+
+    @Test
+    @DisplayName("Индекс холодного хранилища догружается в фоне, когда хранилище становится доступным")
+    void testRestoreRetriesIndexInBackground() {
+        appendMessages(ROOM, 45);
+        archive.close();
+
+        AtomicInteger listFailures = new AtomicInteger();
+        ObjectStorage recovering = new DelegatingStorage(new FileSystemObjectStorage(dir)) {
+            @Override
+            public CompletableFuture<List<String>> list(String prefix) {
+                if (listFailures.getAndIncrement() < 2) {
+                    return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+                }
+                return delegate.list(prefix);
+            }
+        };
+        archive = new HistoryArchive(recovering, null, 10, 256, 2, 1024 * 1024, Duration.ofSeconds(5));
+        archive.restore();
+        archive.append(ROOM, "Message 45");
+        assertThat(archive.recent(ROOM, 100)).containsExactly("Message 45");
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (archive.recent(ROOM, 100).size() < 46 && System.currentTimeMillis() < deadline) {
+            sleep(50);
+        }
+        assertThat(archive.recent(ROOM, 100)).containsExactlyElementsOf(messages(0, 46));
+    }
+
+    @Test
+    @DisplayName("Одновременно выгружается не больше пакетов, чем помещается в лимит очереди")
+    void testUploadsAreBoundedByPendingLimit() {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        ObjectStorage slow = new DelegatingStorage(new FileSystemObjectStorage(dir)) {
+            @Override
+            public CompletableFuture<Void> put(String key, byte[] data) {
+                if (!key.endsWith(".seg")) {
+                    return delegate.put(key, data);
+                }
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS))
+                        .thenCompose(ignored -> delegate.put(key, data))
+                        .whenComplete((ignored, error) -> inFlight.decrementAndGet());
+            }
+        };
+        archive.close();
+        archive = new HistoryArchive(slow, new FileSystemObjectStorage(spillDir), 10, 256, 2, 2 * 256,
+                Duration.ofSeconds(5));
+
+        appendMessages(ROOM, 300);
+        archive.flush().orTimeout(30, TimeUnit.SECONDS).join();
+
+        assertThat(maxInFlight.get()).isBetween(1, 2);
+        assertThat(files(dir, ".seg")).isGreaterThan(4);
+        assertThat(archive.recent(ROOM, 300)).containsExactlyElementsOf(messages(0, 300));
+    }
+
+    @Test
+    @DisplayName("Пакет, выбранный для сброса, выгружается только после завершения сброса")
+    void testSpilledBatchUploadsAfterSpill() {
+        Set<String> spilling = ConcurrentHashMap.newKeySet();
+        AtomicInteger overlaps = new AtomicInteger();
+        ObjectStorage slowSpill = new DelegatingStorage(new FileSystemObjectStorage(spillDir)) {
+            @Override
+            public CompletableFuture<Void> put(String key, byte[] data) {
+                spilling.add(key);
+                return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS))
+                        .thenCompose(ignored -> delegate.put(key, data))
+                        .whenComplete((ignored, error) -> spilling.remove(key));
+            }
+        };
+        ObjectStorage watched = new DelegatingStorage(new FileSystemObjectStorage(dir)) {
+            @Override
+            public CompletableFuture<Void> put(String key, byte[] data) {
+                if (spilling.contains(key)) {
+                    overlaps.incrementAndGet();
+                }
+                return delegate.put(key, data);
+            }
+        };
+        archive.close();
+        archive = new HistoryArchive(watched, slowSpill, 10, 256, 2, 256, Duration.ofSeconds(5));
+
+        appendMessages(ROOM, 200);
+        archive.flush().orTimeout(30, TimeUnit.SECONDS).join();
+
+        assertThat(overlaps.get()).isZero();
+        assertThat(archive.recent(ROOM, 200)).containsExactlyElementsOf(messages(0, 200));
+    }
+
+    @Test
+    @DisplayName("Без каталога сброса переполнение очереди выгрузки отклоняет новые сообщения")
+    void testPendingOverLimitWithoutSpillFailsLoudly() {
+        try (HistoryArchive offline = new HistoryArchive(new FailingStorage(), null, 10, 64, 2, 64, Duration.ofMillis(200))) {
+            assertThatThrownBy(() -> IntStream.range(0, 1000).forEach(i -> offline.append(ROOM, "Message " + i)))
+                    .isInstanceOf(IllegalStateException.class);
+            assertThat(offline.recent(ROOM, 10)).hasSize(10);
+        }
+    }
+
+    @Test
+    @DisplayName("Одновременная запись в разные комнаты сохраняет порядок сообщений каждой комнаты")
+    void testConcurrentAppendsKeepPerRoomOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int r = 0; r < 8; r++) {
+            String room = "room-" + r;
+            writers.add(executor.submit(() -> appendMessages(room, 500)));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        archive.flush().join();
+
+        for (int r = 0; r < 8; r++) {
+            assertThat(archive.recent("room-" + r, 1000)).containsExactlyElementsOf(messages(0, 500));
+        }
+    }
+
+    @Test
+    @DisplayName("Зависшее чтение из хранилища прерывается по таймауту")
+    void testStalledReadTimesOut() {
+        try (HistoryArchive stalled = new HistoryArchive(new StalledStorage(new FileSystemObjectStorage(dir)), null,
+                10, 64, 2, 1024 * 1024, Duration.ofMillis(300))) {
+            IntStream.range(0, 30).forEach(i -> stalled.append(ROOM, "Message " + i));
+            stalled.flush().orTimeout(10, TimeUnit.SECONDS).join();
+
+            assertThatThrownBy(() -> stalled.recent(ROOM, 30))
+                    .isInstanceOf(CompletionException.class)
+                    .hasCauseInstanceOf(TimeoutException.class);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "history.s3.endpoint", matches = ".+")
+    @DisplayName("Архив работает с S3-совместимым хранилищем")
+    void testS3CompatibleStorage() {
+        S3ObjectStorage s3 = S3ObjectStorage.create(
+                System.getProperty("history.s3.endpoint"),
+                System.getProperty("history.s3.region", "us-east-1"),
+                System.getProperty("history.s3.bucket", "chat-history"),
+                System.getProperty("history.s3.access.key"),
+                System.getProperty("history.s3.secret.key"),
+                5 * 1024 * 1024
+        );
+        try (HistoryArchive remote = new HistoryArchive(s3, 10, 256, 2)) {
+            IntStream.range(0, 45).forEach(i -> remote.append(ROOM, "Message " + i));
+            remote.flush().join();
+
+            assertThat(remote.recent(ROOM, 45)).containsExactlyElementsOf(messages(0, 45));
+        }
+    }
+
+    private void appendMessages(String room, int count) {
+        IntStream.range(0, count).forEach(i -> archive.append(room, "Message " + i));
+    }
+
+    private static List<String> messages(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "Message " + i).collect(Collectors.toList());
+    }
+
+    private static long files(Path root, String suffix) {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).filter(file -> file.toString().endsWith(suffix)).count();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void awaitFiles(Path root, String suffix) {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (files(root, suffix) == 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Файлы " + suffix + " не появились в " + root);
+            }
+            sleep(50);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Обёртка, передающая все операции другому хранилищу.
+     */
+    private static class DelegatingStorage implements ObjectStorage {
+        protected final ObjectStorage delegate;
+
+        private DelegatingStorage(ObjectStorage delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] data) {
+            return delegate.put(key, data);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+            return delegate.getRange(key, offset, length);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> get(String key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public CompletableFuture<List<String>> list(String prefix) {
+            return delegate.list(prefix);
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(String key) {
+            return delegate.delete(key);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Хранилище, подсчитывающее обращения к нему.
+     */
+    private static class CountingStorage extends DelegatingStorage {
+        private final AtomicInteger puts = new AtomicInteger();
+        private final AtomicInteger reads = new AtomicInteger();
+
+        private CountingStorage(ObjectStorage delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] data) {
+            puts.incrementAndGet();
+            return delegate.put(key, data);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+            reads.incrementAndGet();
+            return delegate.getRange(key, offset, length);
+        }
+    }
+
+    /**
+     * Хранилище, отклоняющее первые несколько загрузок.
+     */
+    private static class FlakyStorage extends DelegatingStorage {
+        private final AtomicInteger failures = new AtomicInteger();
+        private final int failuresBeforeSuccess;
+
+        private FlakyStorage(ObjectStorage delegate, int failuresBeforeSuccess) {
+            super(delegate);
+            this.failuresBeforeSuccess = failuresBeforeSuccess;
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] data) {
+            if (failures.get() < failuresBeforeSuccess) {
+                failures.incrementAndGet();
+                return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+            }
+            return delegate.put(key, data);
+        }
+    }
+
+    /**
+     * Хранилище, чтения из которого никогда не завершаются.
+     */
+    private static class StalledStorage extends DelegatingStorage {
+        private StalledStorage(ObjectStorage delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+            return new CompletableFuture<>();
+        }
+    }
+
+    /**
+     * Хранилище, отклоняющее любые операции.
+     */
+    private static class FailingStorage implements ObjectStorage {
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] data) {
+            return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+            return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+        }
+
+        @Override
+        public CompletableFuture<byte[]> get(String key) {
+            return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+        }
+
+        @Override
+        public CompletableFuture<List<String>> list(String prefix) {
+            return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(String key) {
+            return CompletableFuture.failedFuture(new IOException("Хранилище недоступно"));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package server;
 
+import history.HistoryArchive;
 import lombok.Getter;
 
 import java.io.IOException;
@@ -16,10 +17,19 @@ import java.net.Socket;
 public class ServerManager {
     @Getter
     private final int port;
+    private final HistoryArchive history;
     private WebSocketServer webSocketServer;
 
     public ServerManager() {
+        this(null);
+    }
+
+    /**
+     * @param history Архив истории для сервера или null для архива из config.properties.
+     */
+    public ServerManager(HistoryArchive history) {
         this.port = findFreePort();
+        this.history = history;
     }
 
     private int findFreePort() {
@@ -32,7 +42,7 @@ public class ServerManager {
 
     public void start() {
         try {
-            webSocketServer = new WebSocketServer(port);
+            webSocketServer = history == null ? new WebSocketServer(port) : new WebSocketServer(port, history);
             new Thread(() -> {
                 try {
                     webSocketServer.start();
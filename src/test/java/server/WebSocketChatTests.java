@@ -3,8 +3,12 @@ package server;
 import com.microsoft.playwright.*;
 import com.microsoft.playwright.assertions.PlaywrightAssertions;
 import config.TestConfig;
+import history.FileSystemObjectStorage;
+import history.HistoryArchive;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Path;
 import java.util.List;
 
 
@@ -19,13 +23,16 @@ public class WebSocketChatTests {
     private static Playwright playwright;
     private static ServerManager server;
     private Browser browser;
+
+    @TempDir
+    static Path historyDir;
     private BrowserContext context;
     private Page page;
 
     @BeforeAll
     static void setupAll() {
         playwright = Playwright.create();
-        server = new ServerManager();
+        server = new ServerManager(new HistoryArchive(new FileSystemObjectStorage(historyDir), 500, 8 * 1024 * 1024, 32));
         server.start();
     }
 
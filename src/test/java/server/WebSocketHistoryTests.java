@@ -0,0 +1,328 @@
+package server;
+
+import history.FileSystemObjectStorage;
+import history.HistoryArchive;
+import history.ObjectStorage;
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Класс WebSocketHistoryTests проверяет команду HISTORY на реальном WebSocket-соединении:
+ * требование авторизации, проверку количества, значение по умолчанию,
+ * разделение истории по комнатам, сохранение истории при остановке сервера
+ * и то, что медленное чтение истории не блокирует соединение.
+ * Клиентом служит WebSocketClient из Jetty, браузер не требуется.
+ */
+public class WebSocketHistoryTests {
+    private static final long TIMEOUT_MS = 5000;
+    private static final long QUIET_MS = 300;
+
+    @TempDir
+    static Path historyDir;
+
+    private static ServerManager server;
+    private static WebSocketClient client;
+
+    @BeforeAll
+    static void setupAll() throws Exception {
+        server = new ServerManager(new HistoryArchive(new FileSystemObjectStorage(historyDir), 10, 1024, 8));
+        server.start();
+        client = new WebSocketClient();
+        client.start();
+    }
+
+    @AfterAll
+    static void tearDownAll() throws Exception {
+        client.stop();
+        server.stop();
+    }
+
+    @Test
+    @DisplayName("История недоступна до авторизации")
+    void testHistoryRequiresLogin() throws Exception {
+        String room = uniqueRoom();
+        ChatClient author = connect(server, room);
+        author.login(uniqueUser());
+        author.sendAll(messages("Secret", 3));
+
+        ChatClient anonymous = connect(server, room);
+        anonymous.send("HISTORY:10");
+
+        assertThat(anonymous.awaitError()).startsWith("ERROR: Требуется авторизация");
+        assertThat(anonymous.history()).isEmpty();
+        author.close();
+        anonymous.close();
+    }
+
+    @Test
+    @DisplayName("HISTORY:n возвращает последние n сообщений комнаты по порядку")
+    void testHistoryReturnsLatestMessages() throws Exception {
+        ChatClient chat = connect(server, uniqueRoom());
+        String user = uniqueUser();
+        chat.login(user);
+        chat.sendAll(messages("Message", 25));
+
+        chat.send("HISTORY:3");
+
+        assertThat(chat.history()).containsExactly(
+                user + ": Message 22", user + ": Message 23", user + ": Message 24");
+        chat.close();
+    }
+
+    @Test
+    @DisplayName("HISTORY: без числа возвращает 50 последних сообщений")
+    void testHistoryDefaultLimit() throws Exception {
+        ChatClient chat = connect(server, uniqueRoom());
+        String user = uniqueUser();
+        chat.login(user);
+        chat.sendAll(messages("Message", 60));
+
+        chat.send("HISTORY:");
+
+        List<String> history = chat.history();
+        assertThat(history).hasSize(50);
+        assertThat(history.get(0)).isEqualTo(user + ": Message 10");
+        assertThat(history.get(49)).isEqualTo(user + ": Message 59");
+        chat.close();
+    }
+
+    @Test
+    @DisplayName("Количество вне диапазона 1..500 и нечисловое значение отклоняются")
+    void testHistoryLimitValidation() throws Exception {
+        ChatClient chat = connect(server, uniqueRoom());
+        chat.login(uniqueUser());
+        chat.sendAll(messages("Message", 3));
+
+        for (String request : List.of("HISTORY:0", "HISTORY:501", "HISTORY:-1", "HISTORY:abc")) {
+            chat.send(request);
+            assertThat(chat.awaitError()).as(request).startsWith("ERROR: ");
+        }
+        chat.send("HISTORY:500");
+        assertThat(chat.history()).hasSize(3);
+        chat.close();
+    }
+
+    @Test
+    @DisplayName("История одной комнаты не видна в другой")
+    void testHistoryIsScopedToRoom() throws Exception {
+        ChatClient alpha = connect(server, uniqueRoom());
+        String alphaUser = uniqueUser();
+        alpha.login(alphaUser);
+        alpha.sendAll(List.of("Alpha message"));
+
+        ChatClient beta = connect(server, uniqueRoom());
+        String betaUser = uniqueUser();
+        beta.login(betaUser);
+        beta.sendAll(List.of("Beta message"));
+
+        beta.send("HISTORY:10");
+        assertThat(beta.history()).containsExactly(betaUser + ": Beta message");
+        alpha.send("HISTORY:10");
+        assertThat(alpha.history()).containsExactly(alphaUser + ": Alpha message");
+        alpha.close();
+        beta.close();
+    }
+
+    @Test
+    @DisplayName("Остановка сервера сохраняет историю, включая незакрытый сегмент")
+    void testStopFlushesHistory(@TempDir Path dir) throws Exception {
+        ServerManager restartable = new ServerManager(new HistoryArchive(new FileSystemObjectStorage(dir), 10, 1024, 8));
+        restartable.start();
+        String room = uniqueRoom();
+        String user = uniqueUser();
+        ChatClient chat = connect(restartable, room);
+        chat.login(user);
+        chat.sendAll(messages("Message", 15));
+        chat.close();
+        restartable.stop();
+
+        try (HistoryArchive restored = new HistoryArchive(new FileSystemObjectStorage(dir), 10, 1024, 8)) {
+            restored.restore();
+            assertThat(restored.recent(room, 100)).containsExactlyElementsOf(
+                    messages("Message", 15).stream().map(m -> user + ": " + m).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    @DisplayName("Зависшее чтение истории не задерживает остальные сообщения соединения")
+    void testSlowHistoryDoesNotBlockConnection(@TempDir Path dir) throws Exception {
+        HistoryArchive archive = new HistoryArchive(new StalledReadStorage(new FileSystemObjectStorage(dir)), null,
+                10, 64, 2, 1024 * 1024, Duration.ofSeconds(2));
+        ServerManager stalled = new ServerManager(archive);
+        stalled.start();
+        try {
+            ChatClient chat = connect(stalled, uniqueRoom());
+            chat.login(uniqueUser());
+            chat.sendAll(messages("Message", 30));
+            archive.flush().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            chat.send("HISTORY:30");
+            long started = System.currentTimeMillis();
+            chat.sendAll(List.of("Ping"));
+            assertThat(System.currentTimeMillis() - started).isLessThan(1000);
+
+            assertThat(chat.awaitError()).isEqualTo("ERROR: История временно недоступна");
+            chat.close();
+        } finally {
+            stalled.stop();
+        }
+    }
+
+    private static ChatClient connect(ServerManager target, String room) throws Exception {
+        ChatClient chat = new ChatClient();
+        chat.session = client.connect(chat, new URI("ws://localhost:" + target.getPort() + "/chat?room=" + room))
+                .get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        chat.awaitMessage("Введите ваш логин:");
+        return chat;
+    }
+
+    private static List<String> messages(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> prefix + " " + i).collect(Collectors.toList());
+    }
+
+    private static String uniqueRoom() {
+        return "room-" + UUID.randomUUID();
+    }
+
+    private static String uniqueUser() {
+        return "user-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * Хранилище, ranged-чтения из которого никогда не завершаются.
+     */
+    private static class StalledReadStorage implements ObjectStorage {
+        private final ObjectStorage delegate;
+
+        private StalledReadStorage(ObjectStorage delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Void> put(String key, byte[] data) {
+            return delegate.put(key, data);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getRange(String key, long offset, int length) {
+            return new CompletableFuture<>();
+        }
+
+        @Override
+        public CompletableFuture<byte[]> get(String key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public CompletableFuture<List<String>> list(String prefix) {
+            return delegate.list(prefix);
+        }
+
+        @Override
+        public CompletableFuture<Void> delete(String key) {
+            return delegate.delete(key);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Тестовый клиент чата, складывающий входящие сообщения в очередь.
+     */
+    @WebSocket
+    public static class ChatClient {
+        private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        private Session session;
+
+        @OnWebSocketMessage
+        public void onMessage(String message) {
+            received.add(message);
+        }
+
+        void send(String message) throws IOException {
+            session.getRemote().sendString(message);
+        }
+
+        void login(String user) throws Exception {
+            send("LOGIN:" + user);
+            awaitMessage("Вы: " + user + " подключился");
+        }
+
+        /**
+         * Отправляет сообщения и дожидается подтверждения каждого,
+         * чтобы к следующему запросу все они уже были в истории.
+         */
+        void sendAll(List<String> messages) throws Exception {
+            for (String message : messages) {
+                send(message);
+                awaitMessage("Вы: " + message);
+            }
+        }
+
+        String awaitError() throws InterruptedException {
+            return awaitMatching(message -> message.startsWith("ERROR: "));
+        }
+
+        void awaitMessage(String expected) throws InterruptedException {
+            awaitMatching(expected::equals);
+        }
+
+        /**
+         * Собирает ответы HISTORY, пока они приходят без паузы дольше QUIET_MS.
+         */
+        List<String> history() throws InterruptedException {
+            List<String> history = new ArrayList<>();
+            String message;
+            while ((message = received.poll(QUIET_MS, TimeUnit.MILLISECONDS)) != null) {
+                if (message.startsWith("HISTORY: ")) {
+                    history.add(message.substring("HISTORY: ".length()));
+                }
+            }
+            return history;
+        }
+
+        void close() {
+            session.close();
+        }
+
+        private String awaitMatching(Predicate<String> predicate) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (true) {
+                String message = received.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    throw new AssertionError("Ожидаемое сообщение не получено");
+                }
+                if (predicate.test(message)) {
+                    return message;
+                }
+            }
+        }
+    }
+}